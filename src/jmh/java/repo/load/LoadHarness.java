@@ -0,0 +1,455 @@
+package repo.load;
+
+import com.google.appengine.tools.development.testing.LocalBlobstoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.apphosting.api.ApiProxy;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
+import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+import org.glassfish.jersey.server.mvc.mustache.MustacheMvcFeature;
+import repo.Application;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.PreMatching;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+
+/**
+ * End-to-end load harness: boots the Jersey {@link Application} in-process on Grizzly, backed by
+ * the local App-Engine Cloud Storage stand-in, and replays Maven deploy then resolve traffic.
+ * <p/>
+ * Every phase runs twice, first with the resource methods blocking their request thread, then with
+ * the asynchronous executor. Both runs get the same number of blocking threads, {@code load.threads}:
+ * all of them serve requests in the synchronous run, while the asynchronous one splits them between
+ * {@code load.server.threads} request threads and the executor. Both also admit at most
+ * {@code load.max-concurrent-requests} requests in flight, suspended ones included, just like
+ * App-Engine's {@code max-concurrent-requests} setting; requests beyond it wait to be admitted.
+ * <p/>
+ * Each run reports its throughput and allocation rate, then latency percentiles per request type,
+ * every HTTP request being timed on its own. The allocation rate covers the whole JVM heap, load
+ * generating clients included. Tuning goes through system properties:
+ * {@code load.clients}, {@code load.artifacts}, {@code load.duration} (seconds), {@code load.port},
+ * {@code load.threads}, {@code load.server.threads} and {@code load.max-concurrent-requests}.
+ */
+public class LoadHarness {
+
+    private static final String USERNAME = "admin";
+    private static final String PASSWORD = "admin";
+    private static final String BUCKET = "load-test";
+    private static final String GROUP = "com/example/load/";
+    private static final String VERSION = "1.0.0";
+    private static final byte[] JAR = new byte[64 * 1024];
+    private static final byte[] POM = "<project/>".getBytes(StandardCharsets.UTF_8);
+
+    private final int clients = Integer.getInteger("load.clients", 64);
+    private final int artifacts = Integer.getInteger("load.artifacts", 100);
+    private final int duration = Integer.getInteger("load.duration", 30);
+    private final int serverThreads = Integer.getInteger("load.server.threads", 10);
+    private final int threads = Integer.getInteger("load.threads", serverThreads + Application.DEFAULT_EXECUTOR_THREADS);
+    private final int maxConcurrentRequests = Integer.getInteger("load.max-concurrent-requests", 80);
+    private final URI base = URI.create("http://localhost:" + Integer.getInteger("load.port", 18080) + "/");
+
+    private final String authorization = "Basic " + Base64.getEncoder()
+            .encodeToString((USERNAME + ":" + PASSWORD).getBytes(StandardCharsets.UTF_8));
+    private final HttpClient client = HttpClient.newBuilder()
+            .executor(Executors.newCachedThreadPool())
+            .build();
+    private final HeapAllocations allocations = new HeapAllocations();
+
+    // Exits with a non-zero status on failed requests or errors, so that the load test can fail.
+    public static void main(String[] args) {
+        int status;
+
+        try {
+            status = new LoadHarness().run() == 0 ? 0 : 1;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            status = 1;
+        }
+
+        System.exit(status);
+    }
+
+    private int run() throws Exception {
+        final LocalServiceTestHelper helper = new LocalServiceTestHelper(
+                new LocalDatastoreServiceTestConfig(), new LocalBlobstoreServiceTestConfig());
+        helper.setUp();
+
+        final File credentials = File.createTempFile("users", ".txt");
+        credentials.deleteOnExit();
+        Files.write(credentials.toPath(), (USERNAME + ":" + PASSWORD + ":write\n").getBytes(StandardCharsets.UTF_8));
+
+        System.setProperty(Application.PROPERTY_CREDENTIALS_FILENAME, credentials.getPath());
+        System.setProperty(Application.PROPERTY_BUCKET_NAME, BUCKET);
+        System.setProperty(MustacheMvcFeature.TEMPLATE_BASE_PATH, "templates");
+
+        if (serverThreads >= threads) {
+            throw new IllegalArgumentException("load.threads must exceed load.server.threads");
+        }
+
+        final ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+        int errors = 0;
+
+        try {
+            System.out.printf("clients=%d artifacts=%d duration=%ds threads=%d server-threads=%d max-concurrent-requests=%d%n",
+                    clients, artifacts, duration, threads, serverThreads, maxConcurrentRequests);
+
+            for (boolean async : new boolean[]{false, true}) {
+                final String mode = async ? "async" : "sync";
+                System.setProperty(Application.PROPERTY_EXECUTOR_THREADS, Integer.toString(async ? threads - serverThreads : 0));
+
+                final HttpServer server = start(environment, async ? serverThreads : threads);
+
+                try {
+                    errors += report(mode + " deploy", replay(this::deploy));
+                    errors += report(mode + " resolve", replay(this::resolve));
+                } finally {
+                    server.shutdownNow();
+                }
+            }
+        } finally {
+            helper.tearDown();
+        }
+
+        return errors;
+    }
+
+    private HttpServer start(ApiProxy.Environment environment, int workerThreads) throws IOException {
+        final Application application = new Application();
+        application.register(new EnvironmentRequestFilter(environment));
+        application.register(new ConcurrentRequestsLimit(maxConcurrentRequests));
+
+        final HttpServer server = GrizzlyHttpServerFactory.createHttpServer(base, application, false);
+        final ThreadPoolConfig workers = ThreadPoolConfig.defaultConfig().copy()
+                .setCorePoolSize(workerThreads)
+                .setMaxPoolSize(workerThreads);
+
+        for (NetworkListener listener : server.getListeners()) {
+            listener.getTransport().setWorkerThreadPoolConfig(workers);
+        }
+
+        server.start();
+        return server;
+    }
+
+    private int deploy(int artifact, Recorder recorder) throws IOException, InterruptedException {
+        final String path = path(artifact);
+        int errors = 0;
+
+        errors += put(recorder, "PUT pom", path + ".pom", POM);
+        errors += put(recorder, "PUT checksum", path + ".pom.sha1", POM);
+        errors += put(recorder, "PUT jar", path + ".jar", JAR);
+        errors += put(recorder, "PUT checksum", path + ".jar.sha1", POM);
+        errors += put(recorder, "PUT metadata", GROUP + "artifact" + artifact + "/maven-metadata.xml", POM);
+
+        return errors;
+    }
+
+    // Gradle-like resolution: probe the missing module metadata first, then pom, jar and checksums.
+    private int resolve(int artifact, Recorder recorder) throws IOException, InterruptedException {
+        final String path = path(artifact);
+        int errors = 0;
+
+        errors += get(recorder, "GET module (404)", path + ".module") == 404 ? 0 : 1;
+        errors += get(recorder, "GET pom", path + ".pom") == 200 ? 0 : 1;
+        errors += get(recorder, "GET checksum", path + ".pom.sha1") == 200 ? 0 : 1;
+        errors += get(recorder, "GET jar", path + ".jar") == 200 ? 0 : 1;
+        errors += get(recorder, "GET checksum", path + ".jar.sha1") == 200 ? 0 : 1;
+
+        return errors;
+    }
+
+    private Result replay(Scenario scenario) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(clients);
+        final List<Future<Recorder>> futures = new ArrayList<>();
+        final AtomicInteger errors = new AtomicInteger();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(duration);
+        final long allocated = allocations.allocatedBytes();
+        final long start = System.nanoTime();
+
+        for (int i = 0; i < clients; i++) {
+            futures.add(executor.submit(() -> {
+                final Recorder recorder = new Recorder();
+
+                while (System.nanoTime() < deadline) {
+                    errors.addAndGet(scenario.run(ThreadLocalRandom.current().nextInt(artifacts), recorder));
+                }
+                return recorder;
+            }));
+        }
+
+        final List<Recorder> recorders = new ArrayList<>();
+        for (Future<Recorder> future : futures) {
+            recorders.add(future.get());
+        }
+
+        final long elapsed = System.nanoTime() - start;
+        final Result result = new Result(recorders, errors.get(), elapsed, allocations.allocatedBytes() - allocated);
+        executor.shutdown();
+
+        return result;
+    }
+
+    private static int report(String phase, Result result) {
+        final double seconds = result.elapsed / 1e9;
+
+        System.out.printf("%s: %d requests, %d errors, %.1f req/s, %.1f MB/s allocated%n",
+                phase, result.requests, result.errors, result.requests / seconds,
+                result.allocated / seconds / (1024 * 1024));
+
+        for (Map.Entry<String, long[]> entry : result.latencies.entrySet()) {
+            final long[] latencies = entry.getValue();
+
+            System.out.printf("  %-18s %8d requests, p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms%n",
+                    entry.getKey(), latencies.length,
+                    percentile(latencies, 0.50), percentile(latencies, 0.90), percentile(latencies, 0.99),
+                    percentile(latencies, 1.0));
+        }
+
+        return result.errors;
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        final int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private int put(Recorder recorder, String type, String path, byte[] content) throws IOException, InterruptedException {
+        final HttpRequest request = HttpRequest.newBuilder(base.resolve(path))
+                .header("Authorization", authorization)
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(content))
+                .build();
+        final long begin = System.nanoTime();
+        final int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        recorder.record(type, System.nanoTime() - begin);
+        return status == 202 ? 0 : 1;
+    }
+
+    private int get(Recorder recorder, String type, String path) throws IOException, InterruptedException {
+        final HttpRequest request = HttpRequest.newBuilder(base.resolve(path))
+                .header("Authorization", authorization)
+                .GET()
+                .build();
+        final long begin = System.nanoTime();
+        final int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        recorder.record(type, System.nanoTime() - begin);
+        return status;
+    }
+
+    private static String path(int artifact) {
+        return GROUP + "artifact" + artifact + "/" + VERSION + "/artifact" + artifact + "-" + VERSION;
+    }
+
+    private interface Scenario {
+        int run(int artifact, Recorder recorder) throws Exception;
+    }
+
+    /**
+     * Per client thread latencies, in nanoseconds, by request type.
+     */
+    private static class Recorder {
+        final Map<String, Samples> samples = new LinkedHashMap<>();
+
+        void record(String type, long latency) {
+            samples.computeIfAbsent(type, key -> new Samples()).add(latency);
+        }
+    }
+
+    private static class Samples {
+        long[] values = new long[1024];
+        int count;
+
+        void add(long value) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = value;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(values, count);
+        }
+    }
+
+    private static class Result {
+        final Map<String, long[]> latencies = new LinkedHashMap<>();
+        final long requests;
+        final int errors;
+        final long elapsed;
+        final long allocated;
+
+        Result(List<Recorder> recorders, int errors, long elapsed, long allocated) {
+            long requests = 0;
+
+            for (Recorder recorder : recorders) {
+                for (Map.Entry<String, Samples> entry : recorder.samples.entrySet()) {
+                    latencies.merge(entry.getKey(), entry.getValue().toArray(),
+                            (a, b) -> LongStream.concat(Arrays.stream(a), Arrays.stream(b)).toArray());
+                    requests += entry.getValue().count;
+                }
+            }
+            for (long[] values : latencies.values()) {
+                Arrays.sort(values);
+            }
+
+            this.requests = requests;
+            this.errors = errors;
+            this.elapsed = elapsed;
+            this.allocated = allocated;
+        }
+    }
+
+    /**
+     * Heap allocations of the whole JVM: the bytes reclaimed by every collection plus the heap in
+     * use. Unlike per thread counters, this also accounts for threads that have since terminated.
+     */
+    private static class HeapAllocations implements NotificationListener {
+        private final Set<String> heapPools = new HashSet<>();
+        private final AtomicLong reclaimed = new AtomicLong();
+
+        HeapAllocations() {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    heapPools.add(pool.getName());
+                }
+            }
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                ((NotificationEmitter) collector).addNotificationListener(this, null, null);
+            }
+        }
+
+        long allocatedBytes() {
+            long used = 0;
+
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (heapPools.contains(pool.getName())) {
+                    used += pool.getUsage().getUsed();
+                }
+            }
+            return reclaimed.get() + used;
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                return;
+            }
+
+            final GcInfo info = GarbageCollectionNotificationInfo
+                    .from((CompositeData) notification.getUserData()).getGcInfo();
+
+            reclaimed.addAndGet(used(info.getMemoryUsageBeforeGc()) - used(info.getMemoryUsageAfterGc()));
+        }
+
+        private long used(Map<String, MemoryUsage> usages) {
+            long used = 0;
+
+            for (Map.Entry<String, MemoryUsage> usage : usages.entrySet()) {
+                if (heapPools.contains(usage.getKey())) {
+                    used += usage.getValue().getUsed();
+                }
+            }
+            return used;
+        }
+    }
+
+    /**
+     * App-Engine API calls need an environment, which only the thread running the local services
+     * helper has: Grizzly worker threads are given that same environment.
+     */
+    @PreMatching
+    private static class EnvironmentRequestFilter implements ContainerRequestFilter {
+        private final ApiProxy.Environment environment;
+
+        EnvironmentRequestFilter(ApiProxy.Environment environment) {
+            this.environment = environment;
+        }
+
+        @Override
+        public void filter(ContainerRequestContext requestContext) {
+            if (ApiProxy.getCurrentEnvironment() == null) {
+                ApiProxy.setEnvironmentForCurrentThread(environment);
+            }
+        }
+    }
+
+    /**
+     * Admits at most {@code permits} requests in flight, suspended ones included: a permit is taken
+     * before matching and only given back once the request finished, whichever thread completed it.
+     */
+    @PreMatching
+    private static class ConcurrentRequestsLimit implements ContainerRequestFilter, ApplicationEventListener {
+        private static final String PERMIT = ConcurrentRequestsLimit.class.getName();
+
+        private final Semaphore semaphore;
+
+        ConcurrentRequestsLimit(int permits) {
+            this.semaphore = new Semaphore(permits, true);
+        }
+
+        @Override
+        public void filter(ContainerRequestContext requestContext) {
+            semaphore.acquireUninterruptibly();
+            requestContext.setProperty(PERMIT, Boolean.TRUE);
+        }
+
+        @Override
+        public void onEvent(ApplicationEvent event) {
+        }
+
+        @Override
+        public RequestEventListener onRequest(RequestEvent requestEvent) {
+            return event -> {
+                if (event.getType() == RequestEvent.Type.FINISHED
+                        && event.getContainerRequest().getProperty(PERMIT) != null) {
+                    event.getContainerRequest().removeProperty(PERMIT);
+                    semaphore.release();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package repo.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.net.URI;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DirectoryBenchmark {
+
+    private static final URI URL = URI.create("com/example/test/");
+
+    @Param({"10", "100", "1000"})
+    public int files;
+
+    private String[] names;
+    private long[] sizes;
+    private Date modified;
+
+    @Setup
+    public void setup() {
+        names = new String[files];
+        sizes = new long[files];
+        modified = new Date();
+
+        for (int i = 0; i < files; i++) {
+            names[i] = i % 10 == 0 ? "1.0." + i + "/" : "test-1.0." + i + ".jar";
+            sizes[i] = 1024L * i;
+        }
+    }
+
+    @Benchmark
+    public Directory build() {
+        final Directory.Builder directory = Directory.builder(URL);
+
+        for (int i = 0; i < files; i++) {
+            final boolean isDirectory = names[i].endsWith("/");
+            directory.add(new FileContext(names[i], sizes[i], isDirectory ? null : modified, isDirectory));
+        }
+
+        return directory.build();
+    }
+}
@@ -0,0 +1,53 @@
+package repo.model;
+
+import com.github.mustachejava.DefaultMustacheFactory;
+import com.github.mustachejava.Mustache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the directory listing template, as compiled and cached by the Jersey mustache feature.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TemplateBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int files;
+
+    private Mustache template;
+    private Directory directory;
+
+    @Setup
+    public void setup() {
+        template = new DefaultMustacheFactory("templates").compile("list.mustache");
+
+        final Directory.Builder builder = Directory.builder(URI.create("com/example/test/"));
+        final Date modified = new Date();
+
+        for (int i = 0; i < files; i++) {
+            builder.add(new FileContext("test-1.0." + i + ".jar", 1024L * i, modified, false));
+        }
+
+        directory = builder.build();
+    }
+
+    @Benchmark
+    public String render() {
+        final StringWriter writer = new StringWriter();
+        template.execute(writer, directory);
+        return writer.toString();
+    }
+}
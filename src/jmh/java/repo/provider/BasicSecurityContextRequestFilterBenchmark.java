@@ -0,0 +1,73 @@
+package repo.provider;
+
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.SecurityContext;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BasicSecurityContextRequestFilterBenchmark {
+
+    private static final URI BASE_URI = URI.create("https://localhost/");
+    private static final URI REQUEST_URI = URI.create("https://localhost/com/example/test/1.0.0/test-1.0.0.pom");
+
+    @Param({"100"})
+    public int users;
+
+    @Param({"valid", "anonymous", "unknown"})
+    public String credentials;
+
+    private BasicSecurityContextRequestFilter filter;
+    private ContainerRequest request;
+
+    @Setup
+    public void setup() {
+        filter = new BasicSecurityContextRequestFilter();
+
+        for (int i = 0; i < users; i++) {
+            filter.add(new User.Builder().credentials("user" + i, "password" + i).role("read").build());
+        }
+        filter.add(new User.Builder().credentials("*", "*").role("list").build());
+
+        // The request is built once: only the filter itself is measured.
+        request = new ContainerRequest(BASE_URI, REQUEST_URI, "GET", null, new MapPropertiesDelegate());
+
+        switch (credentials) {
+            case "valid":
+                request.header(HttpHeaders.AUTHORIZATION, basic("user0", "password0"));
+                break;
+            case "unknown":
+                request.header(HttpHeaders.AUTHORIZATION, basic("nobody", "secret"));
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Benchmark
+    public SecurityContext filter() {
+        request.setSecurityContext(null);
+        filter.filter(request);
+        return request.getSecurityContext();
+    }
+
+    private static String basic(String username, String password) {
+        final String token = username + ":" + password;
+        return "Basic " + Base64.getEncoder().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+}
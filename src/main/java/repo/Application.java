@@ -13,7 +13,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import repo.provider.BasicSecurityContextRequestFilter;
-import repo.provider.CacheControlResponseFilter;
+import repo.provider.CacheControlDynamicFeature;
 import repo.provider.RolesAllowedDynamicFeature;
 import repo.provider.User;
 import repo.resource.RepositoryResource;
@@ -28,9 +28,38 @@ public class Application extends ResourceConfig {
     public static final String PROPERTY_CREDENTIALS_FILENAME = "repository.credentials.location";
     public static final String PROPERTY_CACHE_CONTROL_FETCH = "repository.cache-control.fetch";
     public static final String PROPERTY_CACHE_CONTROL_LIST = "repository.cache-control.list";
+    public static final String PROPERTY_CACHE_CONTROL_RELEASE = "repository.cache-control.release";
+    public static final String PROPERTY_CACHE_CONTROL_SNAPSHOT = "repository.cache-control.snapshot";
+    public static final String PROPERTY_CACHE_CONTROL_METADATA = "repository.cache-control.metadata";
+    public static final String PROPERTY_CACHE_CONTROL_S_MAXAGE = "repository.cache-control.s-maxage";
     public static final String PROPERTY_UNIQUE_ARTIFACT = "repository.unique.artifact";
+    public static final String PROPERTY_EXECUTOR_THREADS = "repository.executor.threads";
+    public static final String PROPERTY_EXECUTOR_QUEUE = "repository.executor.queue";
+    public static final String PROPERTY_METADATA_THREADS = "repository.metadata.threads";
+    public static final String PROPERTY_METADATA_QUEUE = "repository.metadata.queue";
+    public static final String PROPERTY_METADATA_MAX_PATHS = "repository.metadata.max-paths";
+    public static final String PROPERTY_METADATA_BATCH_SIZE = "repository.metadata.batch-size";
+    public static final String PROPERTY_NEGATIVE_CACHE_TTL = "repository.negative-cache.ttl";
+    public static final String PROPERTY_NEGATIVE_CACHE_SIZE = "repository.negative-cache.size";
+    public static final String PROPERTY_BLOOM_FILTER_ENABLED = "repository.bloom-filter.enabled";
+    public static final String PROPERTY_BLOOM_FILTER_SIZE = "repository.bloom-filter.size";
+    public static final String PROPERTY_BLOOM_FILTER_FPP = "repository.bloom-filter.fpp";
+    public static final String PROPERTY_BLOOM_FILTER_MAX_AGE = "repository.bloom-filter.max-age";
+    public static final String PROPERTY_BLOOM_FILTER_REFRESH = "repository.bloom-filter.refresh";
 
     public static final String DEFAULT_CREDENTIALS_FILENAME = "WEB-INF/users.txt";
+    public static final int DEFAULT_EXECUTOR_THREADS = 32;
+    public static final int DEFAULT_EXECUTOR_QUEUE = 512;
+    public static final int DEFAULT_METADATA_THREADS = 8;
+    public static final int DEFAULT_METADATA_QUEUE = 256;
+    public static final int DEFAULT_METADATA_MAX_PATHS = 256;
+    public static final int DEFAULT_METADATA_BATCH_SIZE = 32;
+    public static final int DEFAULT_NEGATIVE_CACHE_TTL = 30;
+    public static final int DEFAULT_NEGATIVE_CACHE_SIZE = 10000;
+    public static final int DEFAULT_BLOOM_FILTER_SIZE = 100000;
+    public static final String DEFAULT_BLOOM_FILTER_FPP = "0.01";
+    public static final int DEFAULT_BLOOM_FILTER_MAX_AGE = 900;
+    public static final int DEFAULT_BLOOM_FILTER_REFRESH = 300;
 
     public static final String ROLE_WRITE = "write";
     public static final String ROLE_READ = "read";
@@ -45,7 +74,8 @@ public class Application extends ResourceConfig {
         register(filter);
         register(RepositoryResource.class);
         register(RolesAllowedDynamicFeature.class);
-        register(CacheControlResponseFilter.class);
+        register(new CacheControlDynamicFeature(filter.isAnonymousUserInRole(ROLE_READ)
+                || filter.isAnonymousUserInRole(ROLE_WRITE)));
         register(MustacheMvcFeature.class);
         property(MustacheMvcFeature.TEMPLATE_BASE_PATH, System.getProperty(MustacheMvcFeature.TEMPLATE_BASE_PATH));
         property(WADL_FEATURE_DISABLE, "true");
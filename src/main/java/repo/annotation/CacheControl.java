@@ -4,16 +4,16 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.concurrent.TimeUnit;
 
-import javax.ws.rs.NameBinding;
-
 /**
  * Set the "Cache-Control" header.
+ * <p/>
+ * When {@link #artifact()} is set, the header is chosen from the requested path: releases,
+ * snapshots and maven metadata files each have their own policy, falling back to this one.
  *
  * @see <a href='http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html#sec14.9.3'>W3C Header
  *      Field Definitions</a>
  */
 @Retention(RetentionPolicy.RUNTIME)
-@NameBinding
 public @interface CacheControl {
     long maxAge() default -1;
     long sMaxAge() default -1;
@@ -24,4 +24,5 @@ public @interface CacheControl {
     boolean mustRevalidate() default false;
     TimeUnit unit() default TimeUnit.SECONDS;
     String property() default "";
+    boolean artifact() default false;
 }
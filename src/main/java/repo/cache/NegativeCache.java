@@ -0,0 +1,40 @@
+package repo.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Short-lived, per-instance memory of object names known to be missing from the bucket.
+ * <p/>
+ * Other instances may create an object meanwhile: entries expire after a short TTL, so that such
+ * objects are seen at most that late. A TTL of zero disables the cache.
+ */
+public final class NegativeCache {
+
+    private final Cache<String, Boolean> missing;
+
+    public NegativeCache(long ttl, TimeUnit unit, long maximumSize) {
+        missing = ttl > 0 ? CacheBuilder.newBuilder()
+                .expireAfterWrite(ttl, unit)
+                .maximumSize(maximumSize)
+                .build() : null;
+    }
+
+    public boolean isMissing(String name) {
+        return missing != null && missing.getIfPresent(name) != null;
+    }
+
+    public void missing(String name) {
+        if (missing != null) {
+            missing.put(name, Boolean.TRUE);
+        }
+    }
+
+    public void invalidate(String name) {
+        if (missing != null) {
+            missing.invalidate(name);
+        }
+    }
+}
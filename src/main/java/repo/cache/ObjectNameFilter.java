@@ -0,0 +1,161 @@
+package repo.cache;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-instance bloom filter of the object names stored in the bucket, answering misses without
+ * a Cloud Storage round trip.
+ * <p/>
+ * The filter is built from a bucket scan, and is due for a rebuild once older than its refresh
+ * period. Uploads handled by other instances are only seen once the filter is rebuilt: a filter
+ * older than its maximum age is no longer consulted, and every name is then reported as possibly
+ * existing, just like before the first scan completes.
+ * <p/>
+ * Lookups are lock-free: a published filter is never modified. Names uploaded through this
+ * instance are kept aside in a concurrent set instead, until the next rebuild takes them over.
+ */
+public final class ObjectNameFilter {
+
+    static private final Logger LOGGER = LoggerFactory.getLogger(ObjectNameFilter.class);
+
+    private final boolean enabled;
+    private final int expectedInsertions;
+    private final double fpp;
+    private final long maxAgeNanos;
+    private final long refreshNanos;
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private final LongAdder negatives = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    private volatile BloomFilter<CharSequence> filter;
+    private volatile Set<String> added = ConcurrentHashMap.newKeySet();
+    private volatile long builtAt;
+    private volatile long attemptedAt;
+    private volatile long size;
+
+    public ObjectNameFilter(boolean enabled, int expectedInsertions, double fpp, long maxAge, long refresh, TimeUnit unit) {
+        this.enabled = enabled;
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        this.maxAgeNanos = unit.toNanos(maxAge);
+        this.refreshNanos = unit.toNanos(refresh);
+        this.attemptedAt = System.nanoTime() - refreshNanos;
+    }
+
+    public boolean isFresh() {
+        return filter != null && System.nanoTime() - builtAt < maxAgeNanos;
+    }
+
+    /**
+     * @return true if the filter was never built, or is older than its refresh period, and no
+     * rebuild was attempted within that period.
+     */
+    public boolean needsRebuild() {
+        final long now = System.nanoTime();
+
+        return enabled && !rebuilding.get()
+                && (filter == null || now - builtAt >= refreshNanos)
+                && now - attemptedAt >= refreshNanos;
+    }
+
+    public boolean mightContain(String name) {
+        // Read in the reverse order of their publication by rebuild().
+        final Set<String> added = this.added;
+        final BloomFilter<CharSequence> current = filter;
+
+        if (current == null || !isFresh() || current.mightContain(name) || added.contains(name)) {
+            return true;
+        }
+        negatives.increment();
+        return false;
+    }
+
+    public synchronized void put(String name) {
+        if (enabled) {
+            added.add(name);
+        }
+    }
+
+    public synchronized void putAll(Collection<String> names) {
+        if (enabled) {
+            added.addAll(names);
+        }
+    }
+
+    /**
+     * Record that a name reported as possibly existing turned out to be missing.
+     */
+    public void falsePositive() {
+        if (isFresh()) {
+            falsePositives.increment();
+        }
+    }
+
+    /**
+     * @return true if the caller should rebuild the filter, then call {@link #finishRebuild()}.
+     */
+    public boolean startRebuild() {
+        if (enabled && rebuilding.compareAndSet(false, true)) {
+            attemptedAt = System.nanoTime();
+            return true;
+        }
+        return false;
+    }
+
+    public void finishRebuild() {
+        rebuilding.set(false);
+    }
+
+    public long rebuild(Iterator<String> names) {
+        final int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(expectedInsertions, size * 3 / 2));
+        final BloomFilter<CharSequence> rebuilt = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), capacity, fpp);
+        final long startedAt = System.nanoTime();
+        long count = 0;
+
+        while (names.hasNext()) {
+            rebuilt.put(names.next());
+            count++;
+        }
+
+        synchronized (this) {
+            for (String name : added) {
+                rebuilt.put(name);
+            }
+
+            final long negatives = this.negatives.sumThenReset();
+            final long falsePositives = this.falsePositives.sumThenReset();
+
+            LOGGER.info("Indexed {} objects in {} KiB (capacity {}, expected fpp {}); previous filter: {} negatives, {} false positives (observed fpp {})",
+                    count, bytes(capacity, fpp) / 1024, capacity, rebuilt.expectedFpp(),
+                    negatives, falsePositives, falsePositives == 0 ? 0.0 : (double) falsePositives / (falsePositives + negatives));
+
+            // Objects uploaded through other instances during the scan may be missing: the filter
+            // ages from the start of the scan.
+            builtAt = startedAt;
+            filter = rebuilt;
+            added = ConcurrentHashMap.newKeySet();
+            size = count;
+        }
+
+        return count;
+    }
+
+    // Same sizing as the one done by BloomFilter.create(), which doesn't expose its bit count.
+    private static long bytes(long capacity, double fpp) {
+        final long bits = (long) (-capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        return (bits + 7) / 8;
+    }
+}
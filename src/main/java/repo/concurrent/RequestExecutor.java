@@ -0,0 +1,93 @@
+package repo.concurrent;
+
+import com.google.apphosting.api.ApiProxy;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.container.AsyncResponse;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded executor running the blocking Cloud Storage calls away from the servlet request threads.
+ * <p/>
+ * App-Engine API calls need the environment of the request that issued them: it is captured
+ * on submission and installed on the worker thread for the duration of the task. Once both the
+ * pool and its queue are full, tasks are rejected with a 503 (Service Unavailable).
+ * <p/>
+ * Without any thread, tasks run synchronously on the calling request thread instead, which is
+ * the blocking behavior the pool is compared against.
+ */
+public final class RequestExecutor {
+
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final ThreadPoolExecutor executor;
+
+    public RequestExecutor(String name, int threads, int queueSize) {
+        if (threads <= 0) {
+            executor = null;
+            return;
+        }
+
+        executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public <T> CompletableFuture<T> submit(final Callable<T> task) {
+        final ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        if (executor == null) {
+            try {
+                future.complete(task.call());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+            return future;
+        }
+
+        try {
+            executor.execute(() -> {
+                if (environment != null) {
+                    ApiProxy.setEnvironmentForCurrentThread(environment);
+                }
+                try {
+                    future.complete(task.call());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    if (environment != null) {
+                        ApiProxy.clearEnvironmentForCurrentThread();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new ServiceUnavailableException());
+        }
+
+        return future;
+    }
+
+    public void resume(final AsyncResponse response, final Callable<?> task) {
+        resume(response, submit(task));
+    }
+
+    public static void resume(final AsyncResponse response, CompletableFuture<?> future) {
+        future.whenComplete((entity, error) -> {
+            if (error == null) {
+                response.resume(entity);
+            } else {
+                response.resume(error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error);
+            }
+        });
+    }
+}
@@ -1,12 +1,14 @@
 package repo.model;
 
-import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
 
 @SuppressWarnings("unused")
 final public class FileContext {
 
-    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd hh:mm:ss");
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd hh:mm:ss")
+            .withZone(ZoneId.systemDefault());
 
     final public String filename;
     final public boolean directory;
@@ -16,7 +18,7 @@ final public class FileContext {
     public FileContext(String filename, long size, Date lastModified, boolean directory) {
         this.filename = filename;
         this.directory = directory;
-        this.modified = lastModified == null ? null : DATE_FORMAT.format(lastModified);
+        this.modified = lastModified == null ? null : DATE_FORMAT.format(lastModified.toInstant());
         this.size = directory ? "-" : humanReadableByteCount(size, false);
     }
 
@@ -35,6 +35,11 @@ public class BasicSecurityContextRequestFilter implements ContainerRequestFilter
         }
     }
 
+    public boolean isAnonymousUserInRole(String role) {
+        final User user = userMap.get(ANONYMOUS_TOKEN);
+        return user != null && user.roles.contains(role);
+    }
+
     @Override
     public void filter(ContainerRequestContext containerRequest) throws WebApplicationException {
 
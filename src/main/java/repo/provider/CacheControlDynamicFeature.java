@@ -0,0 +1,158 @@
+package repo.provider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.container.DynamicFeature;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.FeatureContext;
+import java.util.concurrent.TimeUnit;
+
+import static repo.Application.*;
+
+/**
+ * A {@link DynamicFeature} supporting the {@link repo.annotation.CacheControl} annotation
+ * on resource methods and resource classes.
+ * <p/>
+ * The annotation (and the system properties it refers to) is resolved once per resource method
+ * when the application starts, and a {@link CacheControlResponseFilter} holding the resulting
+ * header values is registered for that method.
+ * <p/>
+ * For artifacts, releases are only considered immutable when {@code repository.unique.artifact}
+ * is enabled: otherwise they share the default policy, since they can be overwritten.
+ * <p/>
+ * Responses are sent without {@code Vary: Authorization}, so shared caches (e.g. the Google
+ * frontend) may only store them when anyone can read the repository: only then is the release
+ * policy made {@code public}, with its {@code s-maxage}. Otherwise, shareable policies are
+ * ignored with a warning.
+ */
+public class CacheControlDynamicFeature implements DynamicFeature {
+
+    static private final Logger LOGGER = LoggerFactory.getLogger(CacheControlDynamicFeature.class);
+
+    private static final String S_MAXAGE = "s-maxage";
+    private static final String PUBLIC = "public";
+    private static final String PRIVATE = "private";
+    private static final String NO_STORE = "no-store";
+
+    private final boolean anonymousRead;
+
+    /**
+     * @param anonymousRead whether anonymous users are allowed to download artifacts.
+     */
+    public CacheControlDynamicFeature(boolean anonymousRead) {
+        this.anonymousRead = anonymousRead;
+    }
+
+    @Override
+    public void configure(final ResourceInfo resourceInfo, final FeatureContext configuration) {
+
+        repo.annotation.CacheControl annotation = resourceInfo.getResourceMethod()
+                .getAnnotation(repo.annotation.CacheControl.class);
+
+        if (annotation == null) {
+            annotation = resourceInfo.getResourceClass()
+                    .getAnnotation(repo.annotation.CacheControl.class);
+        }
+
+        if (annotation == null) {
+            return;
+        }
+
+        final String value = checked(annotation.property(), valueOf(annotation));
+
+        if (!annotation.artifact()) {
+            if (value != null) {
+                configuration.register(new CacheControlResponseFilter(value));
+            }
+            return;
+        }
+
+        String release = value;
+
+        if (Boolean.getBoolean(PROPERTY_UNIQUE_ARTIFACT)) {
+            release = checked(PROPERTY_CACHE_CONTROL_RELEASE, System.getProperty(PROPERTY_CACHE_CONTROL_RELEASE, value));
+
+            if (anonymousRead) {
+                release = shared(release, Integer.getInteger(PROPERTY_CACHE_CONTROL_S_MAXAGE, -1));
+            }
+        }
+
+        configuration.register(new CacheControlResponseFilter(value, release,
+                checked(PROPERTY_CACHE_CONTROL_SNAPSHOT, System.getProperty(PROPERTY_CACHE_CONTROL_SNAPSHOT, value)),
+                checked(PROPERTY_CACHE_CONTROL_METADATA, System.getProperty(PROPERTY_CACHE_CONTROL_METADATA, value))));
+    }
+
+    // Without anonymous read access, a policy letting shared caches store responses would serve
+    // authenticated downloads to anyone: such a policy is ignored.
+    private String checked(String property, String value) {
+        if (value == null || anonymousRead) {
+            return value;
+        }
+
+        final String lower = value.toLowerCase();
+
+        if (lower.contains(PUBLIC) || lower.contains(S_MAXAGE)) {
+            LOGGER.warn("{}: ignoring \"{}\", shared caches are only allowed with anonymous read access (*:*:read)",
+                    property.isEmpty() ? "@CacheControl" : property, value);
+            return null;
+        }
+
+        return value;
+    }
+
+    private static String valueOf(repo.annotation.CacheControl annotation) {
+
+        if (!annotation.property().isEmpty()) {
+            return System.getProperty(annotation.property());
+        }
+
+        final TimeUnit unit = annotation.unit();
+        final CacheControl cacheControl = new CacheControl();
+
+        cacheControl.setPrivate(annotation.isPrivate());
+        cacheControl.setMustRevalidate(annotation.mustRevalidate());
+        cacheControl.setNoCache(annotation.noCache());
+        cacheControl.setNoStore(annotation.noStore());
+        cacheControl.setNoTransform(annotation.noTransform());
+
+        if (annotation.maxAge() >= 0) {
+            cacheControl.setMaxAge((int) unit.toSeconds(annotation.maxAge()));
+        }
+
+        if (annotation.sMaxAge() >= 0) {
+            cacheControl.setSMaxAge((int) unit.toSeconds(annotation.sMaxAge()));
+        }
+
+        return cacheControl.toString();
+    }
+
+    // Let shared caches (e.g. the Google frontend) store the responses, for s-maxage seconds
+    // unless the policy already specifies it.
+    private static String shared(String value, int sMaxAge) {
+        if (value == null || value.toLowerCase().contains(NO_STORE)) {
+            return value;
+        }
+
+        final StringBuilder builder = new StringBuilder(PUBLIC);
+        boolean hasSharedMaxAge = false;
+
+        for (String directive : value.split(",")) {
+            final String trimmed = directive.trim();
+            final String lower = trimmed.toLowerCase();
+
+            if (trimmed.isEmpty() || lower.equals(PUBLIC) || lower.equals(PRIVATE)) {
+                continue;
+            }
+            hasSharedMaxAge |= lower.startsWith(S_MAXAGE);
+            builder.append(", ").append(trimmed);
+        }
+
+        if (!hasSharedMaxAge && sMaxAge >= 0) {
+            builder.append(", ").append(S_MAXAGE).append('=').append(sMaxAge);
+        }
+
+        return builder.toString();
+    }
+}
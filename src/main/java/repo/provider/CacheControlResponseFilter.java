@@ -1,34 +1,59 @@
 package repo.provider;
 
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
 
 import javax.ws.rs.HttpMethod;
 import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.container.ContainerResponseContext;
 import javax.ws.rs.container.ContainerResponseFilter;
-import javax.ws.rs.container.ResourceInfo;
-import javax.ws.rs.core.CacheControl;
-import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
-import javax.ws.rs.ext.Provider;
+import javax.ws.rs.core.Response;
+
+/**
+ * Set the "Cache-Control" header of successful (or not modified) GET and HEAD responses.
+ * <p/>
+ * Instances are registered per resource method by {@link CacheControlDynamicFeature}, with
+ * header values already resolved: a {@code null} value leaves the response untouched.
+ */
+public class CacheControlResponseFilter implements ContainerResponseFilter {
 
+    private static final String METADATA = "maven-metadata.xml";
+    private static final String SNAPSHOT = "-SNAPSHOT/";
 
-@Provider
-@repo.annotation.CacheControl
-public class CacheControlResponseFilter implements ContainerResponseFilter {
+    private final boolean artifact;
+    private final String value;
+    private final String release;
+    private final String snapshot;
+    private final String metadata;
+
+    public CacheControlResponseFilter(String value) {
+        this(false, value, value, value, value);
+    }
 
-    @Context
-    private ResourceInfo resourceInfo;
+    public CacheControlResponseFilter(String value, String release, String snapshot, String metadata) {
+        this(true, value, release, snapshot, metadata);
+    }
+
+    private CacheControlResponseFilter(boolean artifact, String value, String release, String snapshot, String metadata) {
+        this.artifact = artifact;
+        this.value = value;
+        this.release = release;
+        this.snapshot = snapshot;
+        this.metadata = metadata;
+    }
 
     @Override
     public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) throws IOException {
 
-        if(!HttpMethod.GET.equals(requestContext.getMethod())) {
+        final String method = requestContext.getMethod();
+
+        if(!HttpMethod.GET.equals(method) && !HttpMethod.HEAD.equals(method)) {
             return;
         }
 
-        if(!responseContext.hasEntity()) {
+        final int status = responseContext.getStatus();
+
+        if(status != Response.Status.OK.getStatusCode() && status != Response.Status.NOT_MODIFIED.getStatusCode()) {
             return;
         }
 
@@ -36,46 +61,24 @@ public class CacheControlResponseFilter implements ContainerResponseFilter {
             return;
         }
 
-        repo.annotation.CacheControl annotation = resourceInfo.getResourceMethod()
-                .getAnnotation(repo.annotation.CacheControl.class);
-
-        if(annotation == null) {
-            annotation = resourceInfo.getResourceClass()
-                    .getAnnotation(repo.annotation.CacheControl.class);
-        }
+        final String cacheControl = artifact ? valueOf(requestContext.getUriInfo().getPath()) : value;
 
-        if(annotation == null) {
-            return;
+        if(cacheControl != null) {
+            responseContext.getHeaders().putSingle(HttpHeaders.CACHE_CONTROL, cacheControl);
         }
+    }
 
-        CacheControl cacheControl = null;
-
-        if(annotation.property().isEmpty()) {
-
-            final TimeUnit unit = annotation.unit();
-
-            cacheControl = new CacheControl();
-
-            cacheControl.setPrivate(annotation.isPrivate());
-            cacheControl.setMustRevalidate(annotation.mustRevalidate());
-            cacheControl.setNoCache(annotation.noCache());
-            cacheControl.setNoStore(annotation.noStore());
-            cacheControl.setNoTransform(annotation.noTransform());
-
-            if (annotation.maxAge() >= 0) {
-                cacheControl.setMaxAge((int) unit.toSeconds(annotation.maxAge()));
-            }
+    private String valueOf(String path) {
+        final String filename = path.substring(path.lastIndexOf('/') + 1);
 
-            if (annotation.sMaxAge() >= 0) {
-                cacheControl.setSMaxAge((int) unit.toSeconds(annotation.sMaxAge()));
-            }
-        }else {
-            final String raw = System.getProperty(annotation.property());
-            if(raw != null) cacheControl = CacheControl.valueOf(raw);
+        if(filename.startsWith(METADATA)) {
+            return metadata;
         }
 
-        if(cacheControl != null) {
-            responseContext.getHeaders().putSingle(HttpHeaders.CACHE_CONTROL, cacheControl.toString());
+        if(path.contains(SNAPSHOT)) {
+            return snapshot;
         }
+
+        return release;
     }
-}
\ No newline at end of file
+}
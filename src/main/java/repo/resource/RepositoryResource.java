@@ -6,22 +6,41 @@ import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
 import com.google.appengine.api.utils.SystemProperty;
 import com.google.appengine.tools.cloudstorage.*;
-import org.glassfish.jersey.server.mvc.Template;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import org.glassfish.jersey.server.mvc.Viewable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import repo.Application;
 import repo.annotation.CacheControl;
+import repo.cache.NegativeCache;
+import repo.cache.ObjectNameFilter;
+import repo.concurrent.RequestExecutor;
 import repo.model.Directory;
 import repo.model.FileContext;
 
 import javax.annotation.security.RolesAllowed;
 import javax.inject.Singleton;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.*;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static repo.Application.*;
 
@@ -34,33 +53,89 @@ public class RepositoryResource {
     private static final String BUCKET_NAME = System.getProperty(repo.Application.PROPERTY_BUCKET_NAME, DEFAULT_BUCKET);
     private static final Boolean UNIQUE_ARTIFACTS = Boolean.parseBoolean(System.getProperty(Application.PROPERTY_UNIQUE_ARTIFACT, "false"));
     private static final String X_APP_ENGINE_BLOB_KEY = "X-AppEngine-BlobKey";
+    private static final String LIST_TEMPLATE = "/list.mustache";
+    private static final int MAX_METADATA_PATHS = Integer.getInteger(PROPERTY_METADATA_MAX_PATHS, DEFAULT_METADATA_MAX_PATHS);
+    private static final int METADATA_BATCH_SIZE = Integer.getInteger(PROPERTY_METADATA_BATCH_SIZE, DEFAULT_METADATA_BATCH_SIZE);
+    private static final String STAGING_DIR = ".staging/";
+    private static final String STAGING_BASE_DIR = STAGING_DIR + ".base/";
+    private static final String BASE_ETAG = "base-etag";
+    private static final String MAVEN_METADATA = "maven-metadata.xml";
+    private static final int STAGING_BATCH_SIZE = 32;
+    private static final String X_APP_ENGINE_CRON = "X-Appengine-Cron";
 
     private final GcsService gcs = GcsServiceFactory.createGcsService();
     private final BlobstoreService blobstore = BlobstoreServiceFactory.getBlobstoreService();
-    
+    private final RequestExecutor executor = new RequestExecutor("repository",
+            Integer.getInteger(PROPERTY_EXECUTOR_THREADS, DEFAULT_EXECUTOR_THREADS),
+            Integer.getInteger(PROPERTY_EXECUTOR_QUEUE, DEFAULT_EXECUTOR_QUEUE));
+    // Bulk lookups get a lane of their own: however many run at once, they can't fill the queue
+    // of the executor serving every other request.
+    private final RequestExecutor lookups = new RequestExecutor("metadata",
+            Integer.getInteger(PROPERTY_METADATA_THREADS, DEFAULT_METADATA_THREADS),
+            Integer.getInteger(PROPERTY_METADATA_QUEUE, DEFAULT_METADATA_QUEUE));
+    private final NegativeCache missing = new NegativeCache(
+            Integer.getInteger(PROPERTY_NEGATIVE_CACHE_TTL, DEFAULT_NEGATIVE_CACHE_TTL), TimeUnit.SECONDS,
+            Integer.getInteger(PROPERTY_NEGATIVE_CACHE_SIZE, DEFAULT_NEGATIVE_CACHE_SIZE));
+    private final ObjectNameFilter existing = new ObjectNameFilter(
+            Boolean.getBoolean(PROPERTY_BLOOM_FILTER_ENABLED),
+            Integer.getInteger(PROPERTY_BLOOM_FILTER_SIZE, DEFAULT_BLOOM_FILTER_SIZE),
+            Double.parseDouble(System.getProperty(PROPERTY_BLOOM_FILTER_FPP, DEFAULT_BLOOM_FILTER_FPP)),
+            Integer.getInteger(PROPERTY_BLOOM_FILTER_MAX_AGE, DEFAULT_BLOOM_FILTER_MAX_AGE),
+            Integer.getInteger(PROPERTY_BLOOM_FILTER_REFRESH, DEFAULT_BLOOM_FILTER_REFRESH), TimeUnit.SECONDS);
+
     @GET
     @Path("/_ah/start")
     public Response startup() {
         return Response.accepted().build();
     }
 
+    /*
+     * The bloom filter of stored files is only ever rebuilt within requests waiting for the bucket
+     * scan to complete: App-Engine API calls can't outlive the request issuing them. Besides warmup
+     * and cron requests, the first lookup finding the filter due for a rebuild waits for it.
+     */
+
+    @GET
+    @Path("/_ah/warmup")
+    public Response warmup() throws IOException {
+        rebuildExisting();
+        return Response.ok().build();
+    }
+
+    @GET
+    @Path("/_cron/bloom-filter")
+    public Response refresh(@HeaderParam(X_APP_ENGINE_CRON) String cron) throws IOException {
+        if (!Boolean.parseBoolean(cron)) {
+            throw new ForbiddenException();
+        }
+        return rebuildExisting() ? Response.ok().build() : Response.noContent().build();
+    }
+
     @GET
-    @Template(name = "/list.mustache")
     @RolesAllowed(value = {ROLE_WRITE, ROLE_READ, ROLE_LIST})
     @CacheControl(property = Application.PROPERTY_CACHE_CONTROL_LIST)
     @Produces(MediaType.TEXT_HTML)
-    public Directory list(@Context UriInfo uriInfo) throws IOException {
-        return list("", uriInfo);
+    public void list(@Context UriInfo uriInfo, @Suspended AsyncResponse response) {
+        list("", uriInfo, response);
     }
 
     @GET
     @Path("{dir: .*[/]}")
-    @Template(name = "/list.mustache")
     @RolesAllowed(value = {ROLE_WRITE, ROLE_READ, ROLE_LIST})
     @CacheControl(property = Application.PROPERTY_CACHE_CONTROL_LIST)
     @Produces(MediaType.TEXT_HTML)
-    public Directory list(@PathParam("dir") final String dir,
-                          @Context final UriInfo uriInfo) throws IOException {
+    public void list(@PathParam("dir") final String dir,
+                     @Context final UriInfo uriInfo,
+                     @Suspended final AsyncResponse response) {
+        final URI url = URI.create(uriInfo.getPath());
+        executor.resume(response, () -> new Viewable(LIST_TEMPLATE, list(dir, url)));
+    }
+
+    private Directory list(String dir, URI url) throws IOException {
+
+        if (isStaged(dir)) {
+            throw new NotFoundException();
+        }
 
         final ListOptions options = new ListOptions.Builder()
                 .setRecursive(false).setPrefix(dir).build();
@@ -70,13 +145,13 @@ public class RepositoryResource {
             throw new NotFoundException();
         }
 
-        final Directory.Builder directory = Directory.builder(URI.create(uriInfo.getPath()));
+        final Directory.Builder directory = Directory.builder(url);
 
         while (list.hasNext()) {
             final ListItem file = list.next();
             final String name = file.getName();
 
-            if (name.equals(dir)) {
+            if (name.equals(dir) || name.equals(STAGING_DIR)) {
                 continue;
             }
 
@@ -89,11 +164,33 @@ public class RepositoryResource {
     @GET
     @Path("{file: .*}")
     @RolesAllowed(value = {ROLE_WRITE, ROLE_READ})
-    @CacheControl(property = Application.PROPERTY_CACHE_CONTROL_FETCH)
-    public Response fetch(@PathParam("file") String file, @Context Request request) throws IOException {
+    @CacheControl(property = Application.PROPERTY_CACHE_CONTROL_FETCH, artifact = true)
+    public void fetch(@PathParam("file") final String file,
+                      @Context final Request request,
+                      @Context final SecurityContext security,
+                      @Suspended final AsyncResponse response) {
+        final boolean writer = security.isUserInRole(ROLE_WRITE);
+        executor.resume(response, () -> fetch(file, request, false, writer));
+    }
+
+    @HEAD
+    @Path("{file: .*}")
+    @RolesAllowed(value = {ROLE_WRITE, ROLE_READ})
+    @CacheControl(property = Application.PROPERTY_CACHE_CONTROL_FETCH, artifact = true)
+    public void head(@PathParam("file") final String file,
+                     @Context final Request request,
+                     @Context final SecurityContext security,
+                     @Suspended final AsyncResponse response) {
+        final boolean writer = security.isUserInRole(ROLE_WRITE);
+        executor.resume(response, () -> fetch(file, request, true, writer));
+    }
 
+    private Response fetch(String file, Request request, boolean head, boolean writer) throws IOException {
         final GcsFilename filename = new GcsFilename(BUCKET_NAME, file);
-        final GcsFileMetadata meta = gcs.getMetadata(filename);
+        return fetch(filename, getMetadata(filename, writer), request, head);
+    }
+
+    private Response fetch(GcsFilename filename, GcsFileMetadata meta, Request request, boolean head) {
 
         if (meta == null) {
             throw new NotFoundException();
@@ -105,7 +202,12 @@ public class RepositoryResource {
 
         Response.ResponseBuilder response = request.evaluatePreconditions(lastModified, etag);
 
-        if (response == null) {
+        if (response == null && head) {
+            response = Response.ok();
+            response.tag(etag);
+            response.lastModified(lastModified);
+            response.header(HttpHeaders.CONTENT_LENGTH, meta.getLength());
+        } else if (response == null) {
             final String path = String.format("/gs/%s/%s", filename.getBucketName(), filename.getObjectName());
             final BlobKey key = blobstore.createGsBlobKey(path);
             response = Response.ok();
@@ -121,12 +223,79 @@ public class RepositoryResource {
         return response.build();
     }
 
+    /**
+     * Look up the metadata of many files at once: the body lists one path per line, and the
+     * response holds one tab-separated line per path, in the same order:
+     * {@code <status> <length> <etag> <last-modified millis> <path>}, with {@code -} for the
+     * unknown fields of missing files.
+     */
+    @POST
+    @Path("_metadata")
+    @RolesAllowed(value = {ROLE_WRITE, ROLE_READ})
+    @Consumes(MediaType.TEXT_PLAIN)
+    @Produces(MediaType.TEXT_PLAIN)
+    public void metadata(final String paths,
+                         @Context final SecurityContext security,
+                         @Suspended final AsyncResponse response) {
+        final boolean writer = security.isUserInRole(ROLE_WRITE);
+        final List<String> files = new ArrayList<>();
+
+        for (String line : paths.split("\n")) {
+            final String file = line.trim().replaceFirst("^/+", "");
+
+            if (!file.isEmpty()) {
+                files.add(file);
+            }
+        }
+
+        if (files.size() > MAX_METADATA_PATHS) {
+            throw new BadRequestException("At most " + MAX_METADATA_PATHS + " paths can be looked up at once");
+        }
+
+        final Map<String, String> results = new ConcurrentHashMap<>();
+        final List<String> unknown = new ArrayList<>();
+
+        for (String file : files) {
+            if (isKnownMissing(file, writer)) {
+                results.put(file, describe(file, null));
+            } else {
+                unknown.add(file);
+            }
+        }
+
+        RequestExecutor.resume(response, forEach(lookups, METADATA_BATCH_SIZE, unknown, file ->
+                results.put(file, describe(file, getMetadata(new GcsFilename(BUCKET_NAME, file), writer))))
+                .thenApply(done -> files.stream()
+                        .map(results::get)
+                        .collect(Collectors.joining("\n", "", files.isEmpty() ? "" : "\n"))));
+    }
+
+    private static String describe(String file, GcsFileMetadata meta) {
+        if (meta == null) {
+            return String.join("\t", "404", "-", "-", "-", file);
+        }
+
+        final Date lastModified = meta.getLastModified();
+
+        return String.join("\t", "200", Long.toString(meta.getLength()), meta.getEtag(),
+                lastModified == null ? "-" : Long.toString(lastModified.getTime()), file);
+    }
+
     @PUT
     @Path("{file: .*}")
     @RolesAllowed(ROLE_WRITE)
-    public Response put(@PathParam("file") String file,
-                        @HeaderParam(HttpHeaders.CONTENT_TYPE) String mimeType,
-                        byte[] content) throws IOException {
+    public void put(@PathParam("file") final String file,
+                    @HeaderParam(HttpHeaders.CONTENT_TYPE) final String mimeType,
+                    final byte[] content,
+                    @Suspended final AsyncResponse response) {
+        executor.resume(response, () -> put(file, mimeType, content));
+    }
+
+    private Response put(String file, String mimeType, byte[] content) throws IOException {
+
+        if (isStaged(file)) {
+            throw new NotFoundException();
+        }
 
         final GcsFilename filename = new GcsFilename(BUCKET_NAME, file);
         GcsFileOptions.Builder options = new GcsFileOptions.Builder();
@@ -136,20 +305,342 @@ public class RepositoryResource {
         }
 
         if (UNIQUE_ARTIFACTS && gcsFileExist(filename) && isNotAMavenFile(file)) {
-            String duplicate_artifact_warning = "The uploaded artifact is already inside the repository. If you want to overwrite the artifact, you have to disable the 'repository.unique.artifact' flag";
-            LOGGER.info(duplicate_artifact_warning);
-            return Response.notAcceptable(null).entity(duplicate_artifact_warning).build();
+            return duplicateArtifact();
         }
         gcs.createOrReplace(filename, options.build(), ByteBuffer.wrap(content));
+        existing.put(file);
+        missing.invalidate(file);
         return Response.accepted().build();
     }
 
-    private boolean isNotAMavenFile(String file) {
-        return !file.endsWith("maven-metadata.xml") && !file.endsWith("maven-metadata.xml.sha1") && !file.endsWith("maven-metadata.xml.md5");
+    private static Response duplicateArtifact() {
+        String duplicate_artifact_warning = "The uploaded artifact is already inside the repository. If you want to overwrite the artifact, you have to disable the 'repository.unique.artifact' flag";
+        LOGGER.info(duplicate_artifact_warning);
+        return Response.notAcceptable(null).entity(duplicate_artifact_warning).build();
+    }
+
+    /*
+     * Staged deployments: files deployed to ".staging/<session>/" are stored under that hidden
+     * prefix, and only published to their final location once the session is committed. Within a
+     * session, files not staged yet are read from their final location, so that deploying tools
+     * can still merge the published maven metadata: the etag of the metadata they read is recorded
+     * under ".staging/.base/<session>/", to detect metadata published meanwhile by others.
+     */
+
+    @GET
+    @Path(".staging/{session: [A-Za-z0-9][A-Za-z0-9_.-]*}/{file: .+}")
+    @RolesAllowed(ROLE_WRITE)
+    @CacheControl(noStore = true)
+    public void fetchStaged(@PathParam("session") final String session,
+                            @PathParam("file") final String file,
+                            @Context final Request request,
+                            @Suspended final AsyncResponse response) {
+        executor.resume(response, () -> {
+            final GcsFilename staged = new GcsFilename(BUCKET_NAME, STAGING_DIR + session + "/" + file);
+            final GcsFileMetadata meta = gcs.getMetadata(staged);
+
+            if (meta != null) {
+                return fetch(staged, meta, request, false);
+            }
+
+            // Straight from Cloud Storage: a cached miss would have the published metadata overwritten.
+            final GcsFilename published = new GcsFilename(BUCKET_NAME, file);
+            final GcsFileMetadata current = gcs.getMetadata(published);
+
+            if (isMavenMetadata(file)) {
+                gcs.createOrReplace(base(session, file), new GcsFileOptions.Builder()
+                        .addUserMetadata(BASE_ETAG, current == null ? "" : current.getEtag())
+                        .build(), ByteBuffer.allocate(0));
+            }
+
+            return fetch(published, current, request, false);
+        });
+    }
+
+    @PUT
+    @Path(".staging/{session: [A-Za-z0-9][A-Za-z0-9_.-]*}/{file: .+}")
+    @RolesAllowed(ROLE_WRITE)
+    public void putStaged(@PathParam("session") final String session,
+                          @PathParam("file") final String file,
+                          @HeaderParam(HttpHeaders.CONTENT_TYPE) final String mimeType,
+                          final byte[] content,
+                          @Suspended final AsyncResponse response) {
+        executor.resume(response, () -> {
+            if (UNIQUE_ARTIFACTS && isNotAMavenFile(file) && gcsFileExist(new GcsFilename(BUCKET_NAME, file))) {
+                return duplicateArtifact();
+            }
+
+            final GcsFileOptions.Builder options = new GcsFileOptions.Builder();
+
+            if (mimeType != null) {
+                options.mimeType(mimeType);
+            }
+
+            gcs.createOrReplace(new GcsFilename(BUCKET_NAME, STAGING_DIR + session + "/" + file),
+                    options.build(), ByteBuffer.wrap(content));
+            return Response.accepted().build();
+        });
+    }
+
+    /**
+     * Publish every file of a session with server-side copies: artifacts first, then poms and
+     * gradle module files, then maven metadata, so that clients never resolve a pom (or module)
+     * whose artifacts are missing. Staged files are only discarded once everything is published:
+     * a failed commit can be retried, files already published with the same content are skipped.
+     * <p/>
+     * Maven metadata published since the session read it (or published without the session ever
+     * reading it) would be overwritten by a stale merge: the commit is then rejected with a 409
+     * (Conflict), and the session should be discarded and deployed again.
+     */
+    @POST
+    @Path(".staging/{session: [A-Za-z0-9][A-Za-z0-9_.-]*}")
+    @RolesAllowed(ROLE_WRITE)
+    public void commit(@PathParam("session") final String session,
+                       @Suspended final AsyncResponse response) {
+        final String prefix = STAGING_DIR + session + "/";
+        final Queue<String> duplicates = new ConcurrentLinkedQueue<>();
+        final Queue<String> conflicts = new ConcurrentLinkedQueue<>();
+        final Set<String> published = ConcurrentHashMap.newKeySet();
+
+        RequestExecutor.resume(response, executor.submit(() -> staged(prefix)).thenCompose(files -> {
+            final List<String> artifacts = new ArrayList<>();
+            final List<String> descriptors = new ArrayList<>();
+            final List<String> metadata = new ArrayList<>();
+
+            for (String file : files) {
+                if (!isNotAMavenFile(file)) {
+                    metadata.add(file);
+                } else if (isDescriptor(file)) {
+                    descriptors.add(file);
+                } else {
+                    artifacts.add(file);
+                }
+            }
+
+            final CompletableFuture<Void> merged = forEach(executor, STAGING_BATCH_SIZE, metadata, file -> {
+                if (!isMavenMetadata(file)) {
+                    return;
+                }
+
+                final GcsFileMetadata current = gcs.getMetadata(new GcsFilename(BUCKET_NAME, file));
+                final GcsFileMetadata staged = gcs.getMetadata(new GcsFilename(BUCKET_NAME, prefix + file));
+
+                // Already published by a previous attempt of this commit.
+                if (current != null && staged != null && Objects.equals(current.getEtag(), staged.getEtag())) {
+                    published.add(file);
+                    return;
+                }
+
+                final GcsFileMetadata base = gcs.getMetadata(base(session, file));
+                final String expected = base == null ? null : base.getOptions().getUserMetadata().get(BASE_ETAG);
+
+                if (current == null ? expected != null && !expected.isEmpty()
+                        : !current.getEtag().equals(expected)) {
+                    conflicts.add(file);
+                }
+            });
+
+            final CompletableFuture<Void> checked = !UNIQUE_ARTIFACTS ? merged
+                    : merged.thenCompose(done -> forEach(executor, STAGING_BATCH_SIZE, files, file -> {
+                        if (!isNotAMavenFile(file)) {
+                            return;
+                        }
+
+                        final GcsFileMetadata current = gcs.getMetadata(new GcsFilename(BUCKET_NAME, file));
+
+                        if (current == null) {
+                            return;
+                        }
+
+                        final GcsFileMetadata staged = gcs.getMetadata(new GcsFilename(BUCKET_NAME, prefix + file));
+
+                        if (staged != null && Objects.equals(current.getEtag(), staged.getEtag())) {
+                            published.add(file);
+                        } else {
+                            duplicates.add(file);
+                        }
+                    }));
+
+            return checked.thenCompose(ignored -> {
+                if (!conflicts.isEmpty()) {
+                    return CompletableFuture.completedFuture(conflictingMetadata(conflicts));
+                }
+
+                if (!duplicates.isEmpty()) {
+                    return CompletableFuture.completedFuture(duplicateArtifact());
+                }
+
+                final FileAction publish = file -> {
+                    if (published.contains(file)) {
+                        return;
+                    }
+                    gcs.copy(new GcsFilename(BUCKET_NAME, prefix + file), new GcsFilename(BUCKET_NAME, file));
+                    missing.invalidate(file);
+                };
+
+                // Names added ahead of their copy may only cause a Cloud Storage lookup in between.
+                existing.putAll(files);
+
+                return forEach(executor, STAGING_BATCH_SIZE, artifacts, publish)
+                        .thenCompose(done -> forEach(executor, STAGING_BATCH_SIZE, descriptors, publish))
+                        .thenCompose(done -> forEach(executor, STAGING_BATCH_SIZE, metadata, publish))
+                        .thenCompose(done -> forEach(executor, STAGING_BATCH_SIZE, files, file -> gcs.delete(new GcsFilename(BUCKET_NAME, prefix + file))))
+                        .thenCompose(done -> discardBases(session))
+                        .thenApply(done -> Response.noContent().build());
+            });
+        }));
+    }
+
+    @DELETE
+    @Path(".staging/{session: [A-Za-z0-9][A-Za-z0-9_.-]*}")
+    @RolesAllowed(ROLE_WRITE)
+    public void rollback(@PathParam("session") final String session,
+                         @Suspended final AsyncResponse response) {
+        final String prefix = STAGING_DIR + session + "/";
+
+        RequestExecutor.resume(response, executor.submit(() -> staged(prefix))
+                .thenCompose(files -> forEach(executor, STAGING_BATCH_SIZE, files, file -> gcs.delete(new GcsFilename(BUCKET_NAME, prefix + file))))
+                .thenCompose(done -> discardBases(session))
+                .thenApply(done -> Response.noContent().build()));
+    }
+
+    private static Response conflictingMetadata(Collection<String> files) {
+        final String warning = "Maven metadata changed since the session read it: " + String.join(", ", files)
+                + ". Discard the session and deploy again.";
+        LOGGER.info(warning);
+        return Response.status(Response.Status.CONFLICT).entity(warning).build();
+    }
+
+    private List<String> staged(String prefix) throws IOException {
+        final List<String> files = list(prefix);
+
+        if (files.isEmpty()) {
+            throw new NotFoundException();
+        }
+
+        return files;
+    }
+
+    private List<String> list(String prefix) throws IOException {
+        final ListOptions options = new ListOptions.Builder()
+                .setRecursive(true).setPrefix(prefix).build();
+        final ListResult list = gcs.list(BUCKET_NAME, options);
+        final List<String> files = new ArrayList<>();
+
+        while (list.hasNext()) {
+            files.add(list.next().getName().substring(prefix.length()));
+        }
+
+        return files;
+    }
+
+    private CompletableFuture<Void> discardBases(String session) {
+        final String prefix = STAGING_BASE_DIR + session + "/";
+
+        return executor.submit(() -> list(prefix))
+                .thenCompose(files -> forEach(executor, STAGING_BATCH_SIZE, files, file -> gcs.delete(new GcsFilename(BUCKET_NAME, prefix + file))));
+    }
+
+    private static GcsFilename base(String session, String file) {
+        return new GcsFilename(BUCKET_NAME, STAGING_BASE_DIR + session + "/" + file);
+    }
+
+    // Runs the action on every file, a batch at a time so that a single request can't fill the
+    // executor queue, without blocking the calling thread.
+    private static CompletableFuture<Void> forEach(RequestExecutor executor, int batchSize,
+                                                   List<String> files, FileAction action) {
+        CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
+
+        for (List<String> batch : Lists.partition(files, batchSize)) {
+            future = future.thenCompose(done -> CompletableFuture.allOf(batch.stream()
+                    .map(file -> executor.submit(() -> {
+                        action.apply(file);
+                        return null;
+                    }))
+                    .toArray(CompletableFuture[]::new)));
+        }
+
+        return future;
+    }
+
+    private interface FileAction {
+        void apply(String file) throws IOException;
+    }
+
+    private static boolean isDescriptor(String file) {
+        return file.endsWith(".pom") || file.contains(".pom.")
+                || file.endsWith(".module") || file.contains(".module.");
+    }
+
+    private static boolean isStaged(String file) {
+        return file.startsWith(STAGING_DIR);
+    }
+
+    private static boolean isMavenMetadata(String file) {
+        return file.substring(file.lastIndexOf('/') + 1).equals(MAVEN_METADATA);
+    }
+
+    private static boolean isNotAMavenFile(String file) {
+        return !file.substring(file.lastIndexOf('/') + 1).startsWith(MAVEN_METADATA);
     }
 
     private boolean gcsFileExist(GcsFilename filename) throws IOException {
         return gcs.getMetadata(filename) != null;
     }
 
+    private GcsFileMetadata getMetadata(GcsFilename filename, boolean writer) throws IOException {
+        final String name = filename.getObjectName();
+
+        // The first lookup finding the filter due for a rebuild scans the bucket, within its own
+        // request: lookups handled meanwhile bypass the filter once it is too old.
+        if (isFiltered(name, writer) && existing.needsRebuild()) {
+            rebuildExisting();
+        }
+
+        if (isKnownMissing(name, writer)) {
+            return null;
+        }
+
+        final GcsFileMetadata meta = gcs.getMetadata(filename);
+
+        // Maven metadata misses are never remembered: a stale miss would make the next deployment
+        // write that metadata from scratch, forgetting every version published before.
+        if (meta == null && isNotAMavenFile(name)) {
+            missing.missing(name);
+        }
+
+        if (meta == null && isFiltered(name, writer)) {
+            existing.falsePositive();
+        }
+
+        return meta;
+    }
+
+    private boolean isKnownMissing(String name, boolean writer) {
+        if (isStaged(name) || missing.isMissing(name)) {
+            return true;
+        }
+        return isFiltered(name, writer) && !existing.mightContain(name);
+    }
+
+    // Files uploaded through other instances are missing from the bloom filter until its next
+    // rebuild: deployments (and the maven metadata they merge) never rely on it.
+    private static boolean isFiltered(String name, boolean writer) {
+        return !writer && isNotAMavenFile(name);
+    }
+
+    private boolean rebuildExisting() throws IOException {
+        if (!existing.startRebuild()) {
+            return false;
+        }
+
+        try {
+            final ListOptions options = new ListOptions.Builder().setRecursive(true).build();
+            existing.rebuild(Iterators.transform(gcs.list(BUCKET_NAME, options), ListItem::getName));
+            return true;
+        } finally {
+            existing.finishRebuild();
+        }
+    }
+
 }